@@ -0,0 +1,131 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A node of the tries of PersistentVector and PersistentHashMap. Chunks are immutable,
+ * so that a new version of a collection shares all chunks it did not change with the
+ * previous version.
+ * 
+ * When an isolate holding a persistent collection is passed to another actor, Java
+ * serialization writes every chunk of a message once, however many versions in the
+ * message share it. Upon deserialization, chunks are interned: a chunk equal to one
+ * which is still alive in this virtual machine is replaced by it, so that a collection
+ * received repeatedly (e.g. a profile resent after a small update) shares its unchanged
+ * chunks with the copies received before, instead of duplicating them.
+ * 
+ * @author Ambient Group at SOFT
+ */
+class Chunk implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	// interned chunks, weakly held so that chunks no collection refers to can be collected
+	private static final Map<Chunk, WeakReference<Chunk>> interned_ = new WeakHashMap<Chunk, WeakReference<Chunk>>();
+	
+	// a bitmap or a hash, interpreted by the collection owning the chunk
+	final int header_;
+	// the children of the chunk, which are chunks or elements
+	final Object[] slots_;
+	private transient int hash_;
+	
+	Chunk(int header, Object[] slots) {
+		header_ = header;
+		slots_ = slots;
+	}
+	
+	/**
+	 * Chunks are equal if they have the same header, the same child chunks and equal
+	 * elements. Child chunks are compared by identity, as they are interned before
+	 * their parents.
+	 */
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other == null || other.getClass() != getClass()) {
+			return false;
+		}
+		Chunk chunk = (Chunk) other;
+		if (chunk.header_ != header_ || chunk.slots_.length != slots_.length) {
+			return false;
+		}
+		for (int i = 0; i < slots_.length; i++) {
+			Object slot = slots_[i];
+			Object otherSlot = chunk.slots_[i];
+			if (slot instanceof Chunk || slot == null) {
+				if (slot != otherSlot) {
+					return false;
+				}
+			} else if (!slot.equals(otherSlot)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public int hashCode() {
+		if (hash_ == 0) {
+			int hash = 31 * getClass().hashCode() + header_;
+			for (int i = 0; i < slots_.length; i++) {
+				Object slot = slots_[i];
+				int slotHash = (slot == null) ? 0 :
+					(slot instanceof Chunk) ? System.identityHashCode(slot) : slot.hashCode();
+				hash = 31 * hash + slotHash;
+			}
+			hash_ = (hash == 0) ? 1 : hash;
+		}
+		return hash_;
+	}
+	
+	protected Object readResolve() {
+		return intern(this);
+	}
+	
+	private static synchronized Chunk intern(Chunk chunk) {
+		WeakReference<Chunk> ref = interned_.get(chunk);
+		Chunk existing = (ref == null) ? null : ref.get();
+		if (existing != null) {
+			return existing;
+		}
+		interned_.put(chunk, new WeakReference<Chunk>(chunk));
+		return chunk;
+	}
+	
+	/**
+	 * @return the number of received chunks which are alive in this virtual machine
+	 */
+	public static synchronized int internedCount() {
+		return interned_.size();
+	}
+
+}
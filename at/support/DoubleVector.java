@@ -0,0 +1,239 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import java.util.Arrays;
+
+/**
+ * The storage of FractionVector in at/collections/numbervector.at: a growable array
+ * of unboxed fractions, kept in a circular double[] like the numbers of LongVector.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public class DoubleVector {
+	
+	private double[] elements_;
+	// position of the first element in elements_
+	private int head_;
+	private int length_;
+	
+	public DoubleVector(int capacity) {
+		elements_ = new double[Math.max(capacity, 1)];
+		head_ = 0;
+		length_ = 0;
+	}
+	
+	public int length() {
+		return length_;
+	}
+	
+	/**
+	 * @param index a 1-based index
+	 */
+	public double at(int index) {
+		return elements_[position(index)];
+	}
+	
+	public void atPut(int index, double value) {
+		elements_[position(index)] = value;
+	}
+	
+	public void add(double value) {
+		if (length_ == elements_.length) {
+			grow(length_ * 2);
+		}
+		elements_[(head_ + length_) % elements_.length] = value;
+		length_++;
+	}
+	
+	public void addAll(double[] values) {
+		if (length_ + values.length > elements_.length) {
+			grow(Math.max(length_ * 2, length_ + values.length));
+		}
+		for (int i = 0; i < values.length; i++) {
+			elements_[(head_ + length_) % elements_.length] = values[i];
+			length_++;
+		}
+	}
+	
+	/**
+	 * Adds a value and drops the oldest elements until at most size elements remain.
+	 * @return the number of elements dropped
+	 * @throws IllegalArgumentException if size is less than 1
+	 */
+	public int slide(double value, int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("a sliding window holds at least 1 element: " + size);
+		}
+		add(value);
+		int dropped = 0;
+		while (length_ > size) {
+			head_ = (head_ + 1) % elements_.length;
+			length_--;
+			dropped++;
+		}
+		return dropped;
+	}
+	
+	/**
+	 * Removes the element at the given 1-based index, shifting the ones after it.
+	 * @return the removed element
+	 */
+	public double delete(int index) {
+		double removed = at(index);
+		for (int i = index; i < length_; i++) {
+			elements_[position(i)] = elements_[position(i + 1)];
+		}
+		length_--;
+		return removed;
+	}
+	
+	public void clear() {
+		head_ = 0;
+		length_ = 0;
+	}
+	
+	/**
+	 * @return the 1-based index of the first occurrence of the value, or 0 if there is none
+	 */
+	public int indexOf(double value) {
+		for (int i = 0; i < length_; i++) {
+			if (elements_[(head_ + i) % elements_.length] == value) {
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+	
+	public double[] toArray() {
+		double[] values = new double[length_];
+		for (int i = 0; i < length_; i++) {
+			values[i] = elements_[(head_ + i) % elements_.length];
+		}
+		return values;
+	}
+	
+	/**
+	 * Sorts the elements in place, in ascending or descending order.
+	 */
+	public void sort(boolean descending) {
+		double[] sorted = linear(length_);
+		Arrays.sort(sorted, 0, length_);
+		if (descending) {
+			for (int i = 0, j = length_ - 1; i < j; i++, j--) {
+				double tmp = sorted[i];
+				sorted[i] = sorted[j];
+				sorted[j] = tmp;
+			}
+		}
+		elements_ = sorted;
+		head_ = 0;
+	}
+	
+	public double sum() {
+		double sum = 0;
+		for (int i = 0; i < length_; i++) {
+			sum += elements_[(head_ + i) % elements_.length];
+		}
+		return sum;
+	}
+	
+	public double min() {
+		checkNotEmpty();
+		double min = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < length_; i++) {
+			min = Math.min(min, elements_[(head_ + i) % elements_.length]);
+		}
+		return min;
+	}
+	
+	public double max() {
+		checkNotEmpty();
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < length_; i++) {
+			max = Math.max(max, elements_[(head_ + i) % elements_.length]);
+		}
+		return max;
+	}
+	
+	public double mean() {
+		checkNotEmpty();
+		return sum() / length_;
+	}
+	
+	/**
+	 * @return the population variance of the elements
+	 */
+	public double variance() {
+		double mean = mean();
+		double squares = 0;
+		for (int i = 0; i < length_; i++) {
+			double deviation = elements_[(head_ + i) % elements_.length] - mean;
+			squares += deviation * deviation;
+		}
+		return squares / length_;
+	}
+	
+	/**
+	 * @return the nearest-rank percentile of the elements, for 0 < percentage <= 100
+	 */
+	public double percentile(int percentage) {
+		checkNotEmpty();
+		double[] sorted = linear(length_);
+		Arrays.sort(sorted);
+		int rank = (int) (((long) percentage * length_ + 99) / 100);
+		return sorted[Math.min(Math.max(rank, 1), length_) - 1];
+	}
+	
+	private int position(int index) {
+		if (index < 1 || index > length_) {
+			throw new IndexOutOfBoundsException("index " + index + " not in [1, " + length_ + "]");
+		}
+		return (head_ + index - 1) % elements_.length;
+	}
+	
+	private void checkNotEmpty() {
+		if (length_ == 0) {
+			throw new IllegalStateException("vector is empty");
+		}
+	}
+	
+	// copies the elements, starting with the first one, into a new array of the given capacity
+	private double[] linear(int capacity) {
+		double[] copy = new double[Math.max(capacity, 1)];
+		for (int i = 0; i < length_; i++) {
+			copy[i] = elements_[(head_ + i) % elements_.length];
+		}
+		return copy;
+	}
+	
+	private void grow(int capacity) {
+		elements_ = linear(capacity);
+		head_ = 0;
+	}
+
+}
@@ -0,0 +1,165 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bookkeeping of the futures of an actor, used by the future monitoring of at/lang/futures.at.
+ * Every tracked future is remembered by its trace id, with its creation time and the selector
+ * of the message that created it, until it is resolved or ruined. Resolution latencies are
+ * counted in a histogram with power-of-two buckets of microseconds.
+ * 
+ * Futures are kept in creation order, so that listing the futures unresolved for longer than
+ * a given time only visits those futures. At most maxTracked futures are tracked at once,
+ * further futures are only counted, so that a leak cannot make the monitor itself grow
+ * without bound.
+ * 
+ * All methods are called from within the actor owning the monitor.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public class FutureMonitor {
+	
+	/** bucket i counts the latencies below 2^i microseconds (and at least 2^(i-1)) */
+	public static final int BUCKETS = 40;
+	
+	private static class Entry {
+		final long created_;
+		String selector_;
+		Entry(long created) {
+			created_ = created;
+			selector_ = "";
+		}
+	}
+	
+	private final LinkedHashMap<String, Entry> unresolved_ = new LinkedHashMap<String, Entry>();
+	private final int[] latencies_ = new int[BUCKETS];
+	private final int maxTracked_;
+	private int created_;
+	private int resolved_;
+	private int ruined_;
+	private int untracked_;
+	
+	public FutureMonitor(int maxTracked) {
+		maxTracked_ = maxTracked;
+	}
+	
+	/**
+	 * Records the creation of the future with the given trace id.
+	 */
+	public void created(String id) {
+		created_++;
+		if (unresolved_.size() < maxTracked_) {
+			unresolved_.put(id, new Entry(System.nanoTime()));
+		} else {
+			untracked_++;
+		}
+	}
+	
+	/**
+	 * Records the selector of the message which returns the future with the given trace id.
+	 */
+	public void origin(String id, String selector) {
+		Entry entry = unresolved_.get(id);
+		if (entry != null) {
+			entry.selector_ = selector;
+		}
+	}
+	
+	/**
+	 * Records the resolution of the future with the given trace id.
+	 */
+	public void resolved(String id) {
+		if (settle(id)) {
+			resolved_++;
+		}
+	}
+	
+	/**
+	 * Records the ruining of the future with the given trace id.
+	 */
+	public void ruined(String id) {
+		if (settle(id)) {
+			ruined_++;
+		}
+	}
+	
+	private boolean settle(String id) {
+		Entry entry = unresolved_.remove(id);
+		if (entry == null) {
+			return false;
+		}
+		long micros = (System.nanoTime() - entry.created_) / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		latencies_[Math.min(bucket, BUCKETS - 1)]++;
+		return true;
+	}
+	
+	/**
+	 * @return [created, outstanding, resolved, ruined, untracked] futures. Outstanding
+	 * futures are the tracked futures that are neither resolved nor ruined.
+	 */
+	public int[] statistics() {
+		return new int[] { created_, unresolved_.size(), resolved_, ruined_, untracked_ };
+	}
+	
+	/**
+	 * @return the number of resolved or ruined futures per latency bucket, where bucket
+	 * i (0-based) counts the latencies below 2^i microseconds.
+	 */
+	public int[] latencies() {
+		return latencies_.clone();
+	}
+	
+	/**
+	 * @return [trace id, selector, age in milliseconds] of the futures unresolved for at
+	 * least the given number of milliseconds, oldest first.
+	 */
+	public Object[][] unresolvedFor(int millis) {
+		long now = System.nanoTime();
+		long threshold = millis * 1000000L;
+		int count = 0;
+		for (Entry entry : unresolved_.values()) {
+			if (now - entry.created_ < threshold) {
+				break;
+			}
+			count++;
+		}
+		Object[][] result = new Object[count][];
+		Iterator<Map.Entry<String, Entry>> entries = unresolved_.entrySet().iterator();
+		for (int i = 0; i < count; i++) {
+			Map.Entry<String, Entry> entry = entries.next();
+			int age = (int) ((now - entry.getValue().created_) / 1000000L);
+			result[i] = new Object[] { entry.getKey(), entry.getValue().selector_, age };
+		}
+		return result;
+	}
+
+}
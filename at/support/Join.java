@@ -0,0 +1,118 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+/**
+ * Bookkeeping of a join over n futures, used by join:first: in at/lang/futures.at.
+ * The values are stored in a preallocated slot array and a countdown tells when
+ * enough futures were resolved, so that joining a large number of futures does not
+ * build intermediate tables. A join completes once needed futures are resolved, and
+ * fails as soon as so many futures are ruined that needed can no longer be reached.
+ * 
+ * All methods are called from within the actor owning the join.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public class Join {
+	
+	private final Object[] slots_; // values indexed by the position of their future
+	private final int[] arrivals_; // positions of the resolved futures, in order of resolution
+	private final int needed_;
+	private int resolved_;
+	private int ruined_;
+	private boolean done_;
+	
+	/**
+	 * @param size the number of joined futures
+	 * @param needed the number of resolved futures completing the join
+	 */
+	public Join(int size, int needed) {
+		if (needed < 0 || needed > size) {
+			throw new IllegalArgumentException("cannot join " + needed + " of " + size + " futures");
+		}
+		slots_ = new Object[size];
+		arrivals_ = new int[size];
+		needed_ = needed;
+		resolved_ = 0;
+		ruined_ = 0;
+		done_ = needed == 0;
+	}
+	
+	/**
+	 * Records the value of the future at the given (0-based) position.
+	 * @return true if this value completes the join
+	 */
+	public boolean resolve(int position, Object value) {
+		if (done_) {
+			return false;
+		}
+		slots_[position] = value;
+		arrivals_[resolved_++] = position;
+		done_ = resolved_ == needed_;
+		return done_;
+	}
+	
+	/**
+	 * Records that a future was ruined.
+	 * @return true if the join can no longer complete and was not finished before
+	 */
+	public boolean ruin() {
+		if (done_) {
+			return false;
+		}
+		ruined_++;
+		done_ = slots_.length - ruined_ < needed_;
+		return done_;
+	}
+	
+	public boolean isDone() {
+		return done_;
+	}
+	
+	/**
+	 * @return the number of futures still awaited to complete the join
+	 */
+	public int remaining() {
+		return needed_ - resolved_;
+	}
+	
+	/**
+	 * @return if all futures are joined, their values indexed like the futures,
+	 * otherwise the values of the first needed futures in order of resolution.
+	 */
+	public Object[] values() {
+		if (needed_ == slots_.length) {
+			return slots_;
+		}
+		Object[] values = new Object[resolved_];
+		for (int i = 0; i < resolved_; i++) {
+			values[i] = slots_[arrivals_[i]];
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,232 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import edu.vub.at.exceptions.InterpreterException;
+import edu.vub.at.objects.ATObject;
+import edu.vub.at.objects.symbiosis.Symbiosis;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A named pool of threads performing blocking Java calls on behalf of actors, used by
+ * at/support/offactor.at. A call is given as a receiver, a method name and arguments.
+ * The method is looked up and the AmbientTalk arguments are converted in the calling
+ * actor, after which the method is invoked on a thread of the pool, so the event loop
+ * of the calling actor keeps processing messages meanwhile. The outcome is reported to a Completion, which is
+ * an EventListener: when an AmbientTalk object implements it, the notification is
+ * scheduled in the event loop of its actor.
+ * 
+ * At most maxConcurrency calls of a pool run at once, further calls wait in its queue.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public class OffActorExecutor {
+	
+	/**
+	 * Receives the outcome of an off-actor call.
+	 */
+	public interface Completion extends EventListener {
+		public void resolved(Object result);
+		public void failed(Throwable cause);
+	};
+	
+	private static final HashMap<String, OffActorExecutor> pools_ = new HashMap<String, OffActorExecutor>();
+	
+	/**
+	 * @return the pool with the given name, which is created with the given maximum
+	 * number of concurrent calls if it does not exist yet.
+	 */
+	public static synchronized OffActorExecutor pool(String name, int maxConcurrency) {
+		OffActorExecutor pool = pools_.get(name);
+		if (pool == null) {
+			pool = new OffActorExecutor(name, maxConcurrency);
+			pools_.put(name, pool);
+		}
+		return pool;
+	}
+	
+	/**
+	 * Throws the given throwable, so that AmbientTalk code can raise the cause reported
+	 * to a Completion as a Java exception.
+	 */
+	public static void rethrow(Throwable cause) throws Throwable {
+		throw cause;
+	}
+	
+	private final String name_;
+	private final ThreadPoolExecutor executor_;
+	private final AtomicInteger completed_ = new AtomicInteger();
+	private final AtomicInteger failed_ = new AtomicInteger();
+	
+	private OffActorExecutor(String name, int maxConcurrency) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("a pool needs at least 1 thread: " + maxConcurrency);
+		}
+		name_ = name;
+		executor_ = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private int count_ = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "AmbientTalk off-actor pool " + name_ + " #" + (++count_));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// idle threads terminate, so an unused pool does not hold on to threads
+		executor_.allowCoreThreadTimeOut(true);
+	}
+	
+	public String getName() {
+		return name_;
+	}
+	
+	/**
+	 * Changes the maximum number of concurrent calls. Calls already running are not interrupted.
+	 */
+	public synchronized void setMaxConcurrency(int maxConcurrency) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("a pool needs at least 1 thread: " + maxConcurrency);
+		}
+		if (maxConcurrency > executor_.getMaximumPoolSize()) {
+			executor_.setMaximumPoolSize(maxConcurrency);
+			executor_.setCorePoolSize(maxConcurrency);
+		} else {
+			executor_.setCorePoolSize(maxConcurrency);
+			executor_.setMaximumPoolSize(maxConcurrency);
+		}
+	}
+	
+	public int getMaxConcurrency() {
+		return executor_.getMaximumPoolSize();
+	}
+	
+	/**
+	 * Invokes the public method with the given name and arguments on the receiver, on a
+	 * thread of this pool. If the receiver is a Class, a static method of that class is
+	 * invoked. The completion is notified of the result or of the exception raised.
+	 * @throws NoSuchMethodException if there is no method accepting the arguments
+	 */
+	public void invoke(Object receiver, String methodName, Object[] args, final Completion completion) throws NoSuchMethodException {
+		final boolean isStatic = receiver instanceof Class;
+		final Object target = isStatic ? null : receiver;
+		final Class<?> type = isStatic ? (Class<?>) receiver : receiver.getClass();
+		final Object[] javaArgs = new Object[args.length];
+		final Method method = lookup(type, isStatic, methodName, args, javaArgs);
+		executor_.execute(new Runnable() {
+			public void run() {
+				Object result;
+				try {
+					result = method.invoke(target, javaArgs);
+				} catch (InvocationTargetException e) {
+					failed_.incrementAndGet();
+					completion.failed(e.getCause());
+					return;
+				} catch (Exception e) {
+					failed_.incrementAndGet();
+					completion.failed(e);
+					return;
+				}
+				completed_.incrementAndGet();
+				completion.resolved(result);
+			}
+		});
+	}
+	
+	// finds a method accepting the arguments, converted into javaArgs
+	private static Method lookup(Class<?> type, boolean isStatic, String methodName, Object[] args, Object[] javaArgs) throws NoSuchMethodException {
+		for (Method method : type.getMethods()) {
+			if (method.getName().equals(methodName)
+					&& Modifier.isStatic(method.getModifiers()) == isStatic
+					&& convert(method.getParameterTypes(), args, javaArgs)) {
+				return method;
+			}
+		}
+		throw new NoSuchMethodException(type.getName() + "." + methodName + " accepting " + args.length + " arguments");
+	}
+	
+	private static boolean convert(Class<?>[] parameterTypes, Object[] args, Object[] javaArgs) {
+		if (parameterTypes.length != args.length) {
+			return false;
+		}
+		for (int i = 0; i < args.length; i++) {
+			Object arg = args[i];
+			if (arg instanceof ATObject) {
+				try {
+					arg = Symbiosis.ambientTalkToJava((ATObject) arg, parameterTypes[i]);
+				} catch (InterpreterException e) {
+					return false;
+				}
+			}
+			Class<?> type = parameterTypes[i];
+			if (type.isPrimitive() ? (arg == null || !boxed(type).isInstance(arg)) : (arg != null && !type.isInstance(arg))) {
+				return false;
+			}
+			javaArgs[i] = arg;
+		}
+		return true;
+	}
+
+	// the wrapper class of a primitive type, of which converted arguments are instances
+	private static Class<?> boxed(Class<?> primitive) {
+		if (primitive == int.class) {
+			return Integer.class;
+		} else if (primitive == long.class) {
+			return Long.class;
+		} else if (primitive == double.class) {
+			return Double.class;
+		} else if (primitive == float.class) {
+			return Float.class;
+		} else if (primitive == boolean.class) {
+			return Boolean.class;
+		} else if (primitive == char.class) {
+			return Character.class;
+		} else if (primitive == byte.class) {
+			return Byte.class;
+		} else if (primitive == short.class) {
+			return Short.class;
+		}
+		return Void.class;
+	}
+
+	/**
+	 * @return [running, queued, completed, failed] calls
+	 */
+	public int[] statistics() {
+		return new int[] { executor_.getActiveCount(), executor_.getQueue().size(), completed_.get(), failed_.get() };
+	}
+
+}
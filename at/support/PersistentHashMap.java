@@ -0,0 +1,349 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import java.io.Serializable;
+
+/**
+ * An immutable hash map, stored as a hash array mapped trie of chunks. Every chunk has
+ * a bitmap telling which of the 32 possible hash fragments of its level are present, and
+ * holds only those entries, either as a key and its value or as a chunk for the next
+ * level. Keys with the same hash are kept in a collision chunk. Putting and removing a
+ * key return a new map which copies one chunk per level, and shares all other chunks
+ * with the original map.
+ * 
+ * Keys are compared with equals, like the keys of a java.util.HashMap.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public final class PersistentHashMap implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	
+	public static final PersistentHashMap EMPTY = new PersistentHashMap(0, null);
+	
+	private final int size_;
+	private final Chunk root_;
+	
+	// a chunk of the trie, in which header_ is the bitmap of the present hash fragments and
+	// slots_ holds a key and its value, or null and a subchunk, per present fragment
+	private static final class Bitmap extends Chunk {
+		private static final long serialVersionUID = 1L;
+		Bitmap(int bitmap, Object[] slots) {
+			super(bitmap, slots);
+		}
+	}
+	
+	// a chunk of keys which have the hash header_, as alternating keys and values
+	private static final class Collision extends Chunk {
+		private static final long serialVersionUID = 1L;
+		Collision(int hash, Object[] slots) {
+			super(hash, slots);
+		}
+	}
+	
+	private PersistentHashMap(int size, Chunk root) {
+		size_ = size;
+		root_ = root;
+	}
+	
+	/**
+	 * @param entries a table of key-value pairs
+	 */
+	public static PersistentHashMap fromPairs(Object[][] entries) {
+		PersistentHashMap map = EMPTY;
+		for (int i = 0; i < entries.length; i++) {
+			map = map.with(entries[i][0], entries[i][1]);
+		}
+		return map;
+	}
+	
+	public int size() {
+		return size_;
+	}
+	
+	public boolean containsKey(Object key) {
+		return root_ != null && find(root_, 0, hash(key), key) != null;
+	}
+	
+	/**
+	 * @return the value of the key, or null if the map does not contain the key
+	 */
+	public Object get(Object key) {
+		if (root_ == null) {
+			return null;
+		}
+		Object[] entry = find(root_, 0, hash(key), key);
+		return (entry == null) ? null : entry[1];
+	}
+	
+	/**
+	 * @return a map in which the key has the given value
+	 */
+	public PersistentHashMap with(Object key, Object value) {
+		if (key == null) {
+			throw new IllegalArgumentException("null key");
+		}
+		boolean[] added = new boolean[1];
+		Chunk root = put((root_ == null) ? new Bitmap(0, new Object[0]) : root_, 0, hash(key), key, value, added);
+		if (root == root_) {
+			return this;
+		}
+		return new PersistentHashMap(added[0] ? size_ + 1 : size_, root);
+	}
+	
+	/**
+	 * @return a map which does not contain the key
+	 */
+	public PersistentHashMap without(Object key) {
+		if (root_ == null) {
+			return this;
+		}
+		Chunk root = remove(root_, 0, hash(key), key);
+		if (root == root_) {
+			return this;
+		}
+		return (root == null) ? EMPTY : new PersistentHashMap(size_ - 1, root);
+	}
+	
+	public Object[] keys() {
+		Object[] keys = new Object[size_];
+		collect(root_, keys, null, 0);
+		return keys;
+	}
+	
+	public Object[] values() {
+		Object[] values = new Object[size_];
+		collect(root_, null, values, 0);
+		return values;
+	}
+	
+	/**
+	 * The trie is filed by the hash codes the keys had when it was built. Keys whose
+	 * hash code is not based on their value, such as objects compared by identity, get
+	 * another hash code once the map is copied to another actor, in which case the map
+	 * is rebuilt from its entries, like a java.util.HashMap rehashes its entries.
+	 */
+	private Object readResolve() {
+		if (size_ == 0) {
+			return EMPTY;
+		}
+		Object[] keys = keys();
+		for (int i = 0; i < keys.length; i++) {
+			if (find(root_, 0, hash(keys[i]), keys[i]) == null) {
+				Object[] values = values();
+				PersistentHashMap map = EMPTY;
+				for (int j = 0; j < keys.length; j++) {
+					map = map.with(keys[j], values[j]);
+				}
+				return map;
+			}
+		}
+		return this;
+	}
+	
+	private static int hash(Object key) {
+		return (key == null) ? 0 : key.hashCode();
+	}
+	
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+	
+	// the position of the entry for bit in the slots of a chunk with the given bitmap
+	private static int position(int bitmap, int bit) {
+		return 2 * Integer.bitCount(bitmap & (bit - 1));
+	}
+	
+	// returns [key, value] if the key is in the chunk, null otherwise
+	private static Object[] find(Chunk chunk, int shift, int hash, Object key) {
+		while (chunk instanceof Bitmap) {
+			int bit = bit(hash, shift);
+			if ((chunk.header_ & bit) == 0) {
+				return null;
+			}
+			int i = position(chunk.header_, bit);
+			Object k = chunk.slots_[i];
+			if (k == null) {
+				chunk = (Chunk) chunk.slots_[i + 1];
+				shift += BITS;
+			} else {
+				return key.equals(k) ? new Object[] { k, chunk.slots_[i + 1] } : null;
+			}
+		}
+		if (chunk.header_ != hash) {
+			return null;
+		}
+		for (int i = 0; i < chunk.slots_.length; i += 2) {
+			if (key.equals(chunk.slots_[i])) {
+				return new Object[] { chunk.slots_[i], chunk.slots_[i + 1] };
+			}
+		}
+		return null;
+	}
+	
+	private static Chunk put(Chunk chunk, int shift, int hash, Object key, Object value, boolean[] added) {
+		if (chunk instanceof Collision) {
+			if (chunk.header_ == hash) {
+				for (int i = 0; i < chunk.slots_.length; i += 2) {
+					if (key.equals(chunk.slots_[i])) {
+						if (chunk.slots_[i + 1] == value) {
+							return chunk;
+						}
+						Object[] slots = chunk.slots_.clone();
+						slots[i + 1] = value;
+						return new Collision(hash, slots);
+					}
+				}
+				added[0] = true;
+				return new Collision(hash, insert(chunk.slots_, chunk.slots_.length, key, value));
+			}
+			// nest the collision chunk in a bitmap chunk, which separates it from the key
+			Chunk nested = new Bitmap(bit(chunk.header_, shift), new Object[] { null, chunk });
+			return put(nested, shift, hash, key, value, added);
+		}
+		int bit = bit(hash, shift);
+		int i = position(chunk.header_, bit);
+		if ((chunk.header_ & bit) == 0) {
+			added[0] = true;
+			return new Bitmap(chunk.header_ | bit, insert(chunk.slots_, i, key, value));
+		}
+		Object k = chunk.slots_[i];
+		Object v = chunk.slots_[i + 1];
+		Object[] slots;
+		if (k == null) {
+			Chunk child = put((Chunk) v, shift + BITS, hash, key, value, added);
+			if (child == v) {
+				return chunk;
+			}
+			slots = chunk.slots_.clone();
+			slots[i + 1] = child;
+		} else if (key.equals(k)) {
+			if (v == value) {
+				return chunk;
+			}
+			slots = chunk.slots_.clone();
+			slots[i + 1] = value;
+		} else {
+			added[0] = true;
+			slots = chunk.slots_.clone();
+			slots[i] = null;
+			slots[i + 1] = split(shift + BITS, k, v, hash, key, value);
+		}
+		return new Bitmap(chunk.header_, slots);
+	}
+	
+	// a chunk holding two different keys
+	private static Chunk split(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+		int hash1 = hash(key1);
+		if (hash1 == hash2) {
+			return new Collision(hash1, new Object[] { key1, value1, key2, value2 });
+		}
+		boolean[] added = new boolean[1];
+		Chunk chunk = put(new Bitmap(0, new Object[0]), shift, hash1, key1, value1, added);
+		return put(chunk, shift, hash2, key2, value2, added);
+	}
+	
+	// returns the chunk without the key, or null if the chunk becomes empty
+	private static Chunk remove(Chunk chunk, int shift, int hash, Object key) {
+		if (chunk instanceof Collision) {
+			if (chunk.header_ != hash) {
+				return chunk;
+			}
+			for (int i = 0; i < chunk.slots_.length; i += 2) {
+				if (key.equals(chunk.slots_[i])) {
+					return (chunk.slots_.length == 2) ? null : new Collision(hash, delete(chunk.slots_, i));
+				}
+			}
+			return chunk;
+		}
+		int bit = bit(hash, shift);
+		if ((chunk.header_ & bit) == 0) {
+			return chunk;
+		}
+		int i = position(chunk.header_, bit);
+		Object k = chunk.slots_[i];
+		if (k == null) {
+			Chunk child = remove((Chunk) chunk.slots_[i + 1], shift + BITS, hash, key);
+			if (child == chunk.slots_[i + 1]) {
+				return chunk;
+			}
+			if (child != null) {
+				Object[] slots = chunk.slots_.clone();
+				slots[i + 1] = child;
+				return new Bitmap(chunk.header_, slots);
+			}
+		} else if (!key.equals(k)) {
+			return chunk;
+		}
+		if (chunk.header_ == bit) {
+			return null;
+		}
+		return new Bitmap(chunk.header_ & ~bit, delete(chunk.slots_, i));
+	}
+	
+	private static Object[] insert(Object[] slots, int i, Object key, Object value) {
+		Object[] inserted = new Object[slots.length + 2];
+		System.arraycopy(slots, 0, inserted, 0, i);
+		inserted[i] = key;
+		inserted[i + 1] = value;
+		System.arraycopy(slots, i, inserted, i + 2, slots.length - i);
+		return inserted;
+	}
+	
+	private static Object[] delete(Object[] slots, int i) {
+		Object[] deleted = new Object[slots.length - 2];
+		System.arraycopy(slots, 0, deleted, 0, i);
+		System.arraycopy(slots, i + 2, deleted, i, slots.length - i - 2);
+		return deleted;
+	}
+	
+	// copies the keys and values of the chunk from position i on, returns the next position
+	private static int collect(Chunk chunk, Object[] keys, Object[] values, int i) {
+		if (chunk == null) {
+			return i;
+		}
+		for (int j = 0; j < chunk.slots_.length; j += 2) {
+			if (chunk.slots_[j] == null) {
+				i = collect((Chunk) chunk.slots_[j + 1], keys, values, i);
+			} else {
+				if (keys != null) {
+					keys[i] = chunk.slots_[j];
+				}
+				if (values != null) {
+					values[i] = chunk.slots_[j + 1];
+				}
+				i++;
+			}
+		}
+		return i;
+	}
+
+}
@@ -0,0 +1,253 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import java.io.Serializable;
+
+/**
+ * An immutable vector, stored as a bit-partitioned trie of 32-way chunks with the last
+ * (up to 32) elements in a separate tail. Adding, updating and removing the last element
+ * return a new vector which copies at most one chunk per level of the trie, and shares
+ * all other chunks with the original vector.
+ * 
+ * Indices are 1-based, as in AmbientTalk tables.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public final class PersistentVector implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+	
+	private static final Chunk EMPTY_CHUNK = new Chunk(0, new Object[0]);
+	
+	public static final PersistentVector EMPTY = new PersistentVector(0, BITS, EMPTY_CHUNK, new Object[0]);
+	
+	private final int length_;
+	// the number of bits of an index used below the root
+	private final int shift_;
+	private final Chunk root_;
+	private final Object[] tail_;
+	
+	private PersistentVector(int length, int shift, Chunk root, Object[] tail) {
+		length_ = length;
+		shift_ = shift;
+		root_ = root;
+		tail_ = tail;
+	}
+	
+	public static PersistentVector fromArray(Object[] elements) {
+		PersistentVector vector = EMPTY;
+		for (int i = 0; i < elements.length; i++) {
+			vector = vector.plus(elements[i]);
+		}
+		return vector;
+	}
+	
+	public int length() {
+		return length_;
+	}
+	
+	/**
+	 * @param index a 1-based index
+	 */
+	public Object at(int index) {
+		int i = checkIndex(index);
+		return chunkFor(i)[i & MASK];
+	}
+	
+	/**
+	 * @return a vector with the value appended
+	 */
+	public PersistentVector plus(Object value) {
+		int tailLength = length_ - tailOffset();
+		if (tailLength < WIDTH) {
+			Object[] tail = new Object[tailLength + 1];
+			System.arraycopy(tail_, 0, tail, 0, tailLength);
+			tail[tailLength] = value;
+			return new PersistentVector(length_ + 1, shift_, root_, tail);
+		}
+		// the tail is full, push it into the trie
+		Chunk tailChunk = new Chunk(0, tail_);
+		Chunk root;
+		int shift = shift_;
+		if ((length_ >>> BITS) > (1 << shift_)) {
+			// the trie is full, add a level
+			root = new Chunk(0, new Object[] { root_, path(shift_, tailChunk) });
+			shift += BITS;
+		} else {
+			root = pushTail(shift_, root_, tailChunk);
+		}
+		return new PersistentVector(length_ + 1, shift, root, new Object[] { value });
+	}
+	
+	/**
+	 * @return a vector with the value at the given 1-based index replaced
+	 */
+	public PersistentVector with(int index, Object value) {
+		int i = checkIndex(index);
+		if (i >= tailOffset()) {
+			Object[] tail = tail_.clone();
+			tail[i & MASK] = value;
+			return new PersistentVector(length_, shift_, root_, tail);
+		}
+		return new PersistentVector(length_, shift_, replace(shift_, root_, i, value), tail_);
+	}
+	
+	/**
+	 * @return a vector without its last element
+	 */
+	public PersistentVector pop() {
+		if (length_ == 0) {
+			throw new IllegalStateException("Cannot pop empty vector");
+		}
+		if (length_ == 1) {
+			return EMPTY;
+		}
+		if (length_ - tailOffset() > 1) {
+			Object[] tail = new Object[tail_.length - 1];
+			System.arraycopy(tail_, 0, tail, 0, tail.length);
+			return new PersistentVector(length_ - 1, shift_, root_, tail);
+		}
+		// the tail becomes empty, the last chunk of the trie becomes the tail
+		Object[] tail = chunkFor(length_ - 2);
+		Chunk root = popTail(shift_, root_);
+		int shift = shift_;
+		if (root == null) {
+			root = EMPTY_CHUNK;
+		}
+		if (shift > BITS && root.slots_.length == 1) {
+			root = (Chunk) root.slots_[0];
+			shift -= BITS;
+		}
+		return new PersistentVector(length_ - 1, shift, root, tail);
+	}
+	
+	public Object[] toArray() {
+		Object[] elements = new Object[length_];
+		int i = 0;
+		while (i < length_) {
+			Object[] chunk = chunkFor(i);
+			int count = Math.min(chunk.length, length_ - i);
+			System.arraycopy(chunk, 0, elements, i, count);
+			i += count;
+		}
+		return elements;
+	}
+	
+	/**
+	 * @return the number of chunks received from other actors which are shared by
+	 * the persistent collections of this virtual machine
+	 */
+	public static int internedChunks() {
+		return Chunk.internedCount();
+	}
+	
+	private int checkIndex(int index) {
+		if (index < 1 || index > length_) {
+			throw new IndexOutOfBoundsException("index " + index + " not in [1, " + length_ + "]");
+		}
+		return index - 1;
+	}
+	
+	// the index of the first element in the tail
+	private int tailOffset() {
+		return (length_ < WIDTH) ? 0 : ((length_ - 1) >>> BITS) << BITS;
+	}
+	
+	// the elements of the chunk holding the 0-based index i
+	private Object[] chunkFor(int i) {
+		if (i >= tailOffset()) {
+			return tail_;
+		}
+		Chunk chunk = root_;
+		for (int level = shift_; level > 0; level -= BITS) {
+			chunk = (Chunk) chunk.slots_[(i >>> level) & MASK];
+		}
+		return chunk.slots_;
+	}
+	
+	private Chunk pushTail(int level, Chunk parent, Chunk tailChunk) {
+		int sub = ((length_ - 1) >>> level) & MASK;
+		Object child;
+		if (level == BITS) {
+			child = tailChunk;
+		} else if (sub < parent.slots_.length) {
+			child = pushTail(level - BITS, (Chunk) parent.slots_[sub], tailChunk);
+		} else {
+			child = path(level - BITS, tailChunk);
+		}
+		Object[] slots = new Object[Math.max(parent.slots_.length, sub + 1)];
+		System.arraycopy(parent.slots_, 0, slots, 0, parent.slots_.length);
+		slots[sub] = child;
+		return new Chunk(0, slots);
+	}
+	
+	private Chunk popTail(int level, Chunk parent) {
+		int sub = ((length_ - 2) >>> level) & MASK;
+		if (level > BITS) {
+			Chunk child = popTail(level - BITS, (Chunk) parent.slots_[sub]);
+			if (child == null && sub == 0) {
+				return null;
+			}
+			Object[] slots;
+			if (child == null) {
+				slots = new Object[sub];
+				System.arraycopy(parent.slots_, 0, slots, 0, sub);
+			} else {
+				slots = parent.slots_.clone();
+				slots[sub] = child;
+			}
+			return new Chunk(0, slots);
+		}
+		if (sub == 0) {
+			return null;
+		}
+		Object[] slots = new Object[sub];
+		System.arraycopy(parent.slots_, 0, slots, 0, sub);
+		return new Chunk(0, slots);
+	}
+	
+	private static Chunk path(int level, Chunk chunk) {
+		return (level == 0) ? chunk : new Chunk(0, new Object[] { path(level - BITS, chunk) });
+	}
+	
+	private static Chunk replace(int level, Chunk chunk, int i, Object value) {
+		Object[] slots = chunk.slots_.clone();
+		if (level == 0) {
+			slots[i & MASK] = value;
+		} else {
+			int sub = (i >>> level) & MASK;
+			slots[sub] = replace(level - BITS, (Chunk) chunk.slots_[sub], i, value);
+		}
+		return new Chunk(0, slots);
+	}
+
+}
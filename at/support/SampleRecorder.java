@@ -0,0 +1,142 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import java.util.Arrays;
+
+/**
+ * Records durations in nanoseconds, measured with the monotonic System.nanoTime,
+ * and computes order statistics over them. Used by the benchmark:runs: construct
+ * of at/support/timer.at: start() and stop() measure a run on the Java side, so the
+ * measurement does not include the arithmetic of AmbientTalk on longs.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public class SampleRecorder {
+	
+	private long[] samples_;
+	private int count_;
+	private long[] sorted_; // the samples in ascending order, null until a statistic needs them
+	private long start_;
+	
+	public SampleRecorder(int capacity) {
+		samples_ = new long[Math.max(capacity, 1)];
+		count_ = 0;
+		sorted_ = null;
+	}
+	
+	/**
+	 * Starts measuring a run.
+	 */
+	public void start() {
+		start_ = System.nanoTime();
+	}
+	
+	/**
+	 * Records the time elapsed since the last call to start.
+	 */
+	public void stop() {
+		record(System.nanoTime() - start_);
+	}
+	
+	/**
+	 * Records a duration in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (count_ == samples_.length) {
+			samples_ = Arrays.copyOf(samples_, count_ * 2);
+		}
+		samples_[count_++] = nanos;
+		sorted_ = null;
+	}
+	
+	public int count() {
+		return count_;
+	}
+	
+	/**
+	 * @return the nearest-rank percentile of the samples, for 0 < percentage <= 100
+	 */
+	public long percentile(int percentage) {
+		int rank = (int) (((long) percentage * count_ + 99) / 100);
+		return sorted()[Math.min(Math.max(rank, 1), count_) - 1];
+	}
+	
+	public long min() {
+		return sorted()[0];
+	}
+	
+	public long median() {
+		return percentile(50);
+	}
+	
+	public long max() {
+		return percentile(100);
+	}
+	
+	// returns a sorted copy of the samples for the order statistics above, made once
+	// per batch of recorded samples, so that samples_ keeps the order of recording
+	private long[] sorted() {
+		if (count_ == 0) {
+			throw new IllegalStateException("no samples recorded");
+		}
+		if (sorted_ == null) {
+			sorted_ = Arrays.copyOf(samples_, count_);
+			Arrays.sort(sorted_);
+		}
+		return sorted_;
+	}
+	
+	/**
+	 * @return the mean of the samples, in nanoseconds
+	 */
+	public long mean() {
+		if (count_ == 0) {
+			throw new IllegalStateException("no samples recorded");
+		}
+		long sum = 0;
+		for (int i = 0; i < count_; i++) {
+			sum += samples_[i];
+		}
+		return sum / count_;
+	}
+	
+	/**
+	 * @return the samples in the order in which they were recorded
+	 */
+	public long[] samples() {
+		return Arrays.copyOf(samples_, count_);
+	}
+	
+	public String toString() {
+		if (count_ == 0) {
+			return "no samples";
+		}
+		return count_ + " runs: min " + min() + " ns, median " + median() + " ns, p99 " + percentile(99) + " ns, max " + max() + " ns";
+	}
+
+}
@@ -0,0 +1,300 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import at.support.RunnableTimerTask.AsyncRunnable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the tasks of at/support/timer.at on a ScheduledThreadPoolExecutor shared by all actors.
+ * 
+ * Deadlines are rounded up to a multiple of the granularity, so a task runs at most one
+ * granularity late, and all tasks due in the same tick share a single executor task.
+ * Cancelling a task removes it from its tick, and a tick without tasks is removed from
+ * the executor's queue, so cancelled tasks do not pile up in the queue as they do in a
+ * java.util.Timer.
+ * 
+ * Periodic tasks can be aligned: given the jitter they allow, their deadlines are rounded
+ * up to a multiple of the coarsest of the ALIGNMENTS not exceeding that jitter. Aligned
+ * tasks with compatible periods hence fall in the same ticks and are fired together,
+ * rather than each waking up the scheduler at its own instants.
+ * 
+ * Tasks are AsyncRunnables: invoking an AmbientTalk object through this interface
+ * schedules the invocation in the event loop of its actor, so the scheduler threads
+ * only hand tasks over to the actors and never run AmbientTalk code themselves.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public class Scheduler {
+	
+	/** granularity (in milliseconds) of the shared scheduler */
+	public static final long DEFAULT_GRANULARITY = 10;
+	
+	/** units (in milliseconds) to which the deadlines of aligned tasks are rounded up */
+	public static final long[] ALIGNMENTS = { 50, 100, 250, 500, 1000, 5000, 10000, 30000, 60000 };
+	
+	private static Scheduler shared_;
+	
+	/**
+	 * @return the scheduler shared by all actors, created upon first use.
+	 */
+	public static synchronized Scheduler shared() {
+		if (shared_ == null) {
+			shared_ = new Scheduler(1, DEFAULT_GRANULARITY);
+		}
+		return shared_;
+	}
+	
+	/**
+	 * A scheduled task, which can be cancelled.
+	 */
+	public final class Task {
+		
+		private final AsyncRunnable runnable_;
+		private final long period_; // 0 for tasks that run once
+		private final long alignment_; // unit to which the deadline is rounded up, 1 if not aligned
+		private long nominal_; // the deadline before alignment
+		private long deadline_;
+		private Tick tick_;
+		private boolean cancelled_;
+		
+		private Task(AsyncRunnable runnable, long deadline, long period, long alignment) {
+			runnable_ = runnable;
+			period_ = period;
+			alignment_ = alignment;
+			nominal_ = deadline;
+			deadline_ = align(deadline, alignment);
+			cancelled_ = false;
+		}
+		
+		// the next deadline of a periodic task, at a fixed rate
+		private void advance() {
+			nominal_ += period_;
+			deadline_ = align(nominal_, alignment_);
+		}
+		
+		/**
+		 * @return true if the task was cancelled by this call, false if it was cancelled before
+		 */
+		public boolean cancel() {
+			return Scheduler.this.cancel(this);
+		}
+		
+		/**
+		 * @return the time (in milliseconds since the epoch) at which the task is run next,
+		 * as the scheduledExecutionTime of a java.util.TimerTask.
+		 */
+		public long scheduledExecutionTime() {
+			synchronized (Scheduler.this) {
+				return deadline_;
+			}
+		}
+		
+		public boolean isCancelled() {
+			synchronized (Scheduler.this) {
+				return cancelled_;
+			}
+		}
+	}
+	
+	/**
+	 * The tasks due in the same tick, run by a single executor task.
+	 */
+	private final class Tick implements Runnable {
+		
+		private final long number_;
+		private final ArrayList<Task> tasks_ = new ArrayList<Task>();
+		private ScheduledFuture<?> future_;
+		
+		private Tick(long number) {
+			number_ = number;
+		}
+		
+		public void run() {
+			ArrayList<Task> due = new ArrayList<Task>(tasks_.size());
+			synchronized (Scheduler.this) {
+				// a tick created again for the same number after this one was cancelled is kept
+				ticks_.remove(number_, this);
+				fired_++;
+				for (Task task : tasks_) {
+					if (!task.cancelled_) {
+						due.add(task);
+						if (task.period_ > 0) {
+							task.advance();
+							enqueue(task);
+						}
+					}
+				}
+				tasks_.clear();
+				run_ += due.size();
+			}
+			for (Task task : due) {
+				try {
+					task.runnable_.run();
+				} catch (RuntimeException e) {
+					// an actor that cannot accept the task must not prevent the other tasks from running,
+					// the failure is counted in the statistics instead
+					synchronized (Scheduler.this) {
+						failed_++;
+					}
+				}
+			}
+		}
+	}
+	
+	private final ScheduledThreadPoolExecutor executor_;
+	private final long granularity_;
+	private final HashMap<Long, Tick> ticks_ = new HashMap<Long, Tick>(); // key: deadline / granularity
+	private int scheduled_;
+	private int cancelled_;
+	private int fired_;
+	private int run_;
+	private int failed_;
+	
+	/**
+	 * @param threads the number of threads handing tasks over to the actors
+	 * @param granularity the granularity (in milliseconds) of deadlines
+	 */
+	public Scheduler(int threads, long granularity) {
+		if (granularity < 1) {
+			throw new IllegalArgumentException("granularity must be at least 1 millisecond: " + granularity);
+		}
+		executor_ = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "AmbientTalk scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		granularity_ = granularity;
+	}
+	
+	/**
+	 * Runs the task once after the given delay (in milliseconds).
+	 */
+	public synchronized Task schedule(AsyncRunnable runnable, long delay) {
+		Task task = new Task(runnable, System.currentTimeMillis() + Math.max(delay, 0), 0, 1);
+		enqueue(task);
+		scheduled_++;
+		return task;
+	}
+	
+	/**
+	 * Runs the task after the given delay and then every period (in milliseconds),
+	 * at a fixed rate, until it is cancelled.
+	 */
+	public synchronized Task scheduleAtFixedRate(AsyncRunnable runnable, long delay, long period) {
+		if (period < 1) {
+			throw new IllegalArgumentException("period must be at least 1 millisecond: " + period);
+		}
+		Task task = new Task(runnable, System.currentTimeMillis() + Math.max(delay, 0), period, 1);
+		enqueue(task);
+		scheduled_++;
+		return task;
+	}
+	
+	/**
+	 * Runs the task every period (in milliseconds), at a fixed rate, until it is cancelled.
+	 * Every run may be up to jitter milliseconds late, so that it can be fired together
+	 * with other aligned tasks.
+	 */
+	public synchronized Task scheduleAligned(AsyncRunnable runnable, long period, long jitter) {
+		if (period < 1) {
+			throw new IllegalArgumentException("period must be at least 1 millisecond: " + period);
+		}
+		Task task = new Task(runnable, System.currentTimeMillis() + period, period, alignmentFor(jitter));
+		enqueue(task);
+		scheduled_++;
+		return task;
+	}
+	
+	/**
+	 * @return the coarsest of the ALIGNMENTS not exceeding the jitter, 1 if there is none.
+	 */
+	public static long alignmentFor(long jitter) {
+		long alignment = 1;
+		for (int i = 0; i < ALIGNMENTS.length && ALIGNMENTS[i] <= jitter; i++) {
+			alignment = ALIGNMENTS[i];
+		}
+		return alignment;
+	}
+	
+	private static long align(long time, long alignment) {
+		return ((time + alignment - 1) / alignment) * alignment;
+	}
+	
+	private void enqueue(Task task) {
+		long number = (task.deadline_ + granularity_ - 1) / granularity_;
+		Tick tick = ticks_.get(number);
+		if (tick == null) {
+			tick = new Tick(number);
+			ticks_.put(number, tick);
+			long delay = Math.max(number * granularity_ - System.currentTimeMillis(), 0);
+			tick.future_ = executor_.schedule(tick, delay, TimeUnit.MILLISECONDS);
+		}
+		tick.tasks_.add(task);
+		task.tick_ = tick;
+	}
+	
+	private synchronized boolean cancel(Task task) {
+		if (task.cancelled_) {
+			return false;
+		}
+		task.cancelled_ = true;
+		cancelled_++;
+		Tick tick = task.tick_;
+		task.tick_ = null;
+		if (tick != null && tick.tasks_.remove(task) && tick.tasks_.isEmpty()) {
+			ticks_.remove(tick.number_);
+			tick.future_.cancel(false);
+			executor_.remove((Runnable) tick.future_);
+		}
+		return true;
+	}
+	
+	/**
+	 * @return [scheduled, cancelled, pending ticks, fired ticks, runs, failed] where scheduled and
+	 * cancelled count the tasks scheduled and cancelled so far, pending ticks are the executor tasks
+	 * awaiting their deadline, fired ticks count the times the scheduler woke up to run tasks,
+	 * runs count the tasks run in those ticks and failed counts the runs that raised an exception.
+	 * Fewer fired ticks than runs means that tasks shared ticks.
+	 */
+	public synchronized int[] statistics() {
+		return new int[] { scheduled_, cancelled_, ticks_.size(), fired_, run_, failed_ };
+	}
+	
+	public long granularity() {
+		return granularity_;
+	}
+
+}
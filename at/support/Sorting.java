@@ -0,0 +1,104 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Stable sorting of keys which Java can compare natively, used by sort and sortBy: of
+ * at/collections/vector.at. Rather than sorting the keys, the methods return the
+ * order in which the elements they were extracted from should appear, so that the
+ * elements themselves never leave AmbientTalk.
+ * 
+ * Sorting relies on Arrays.sort on objects, which is a stable merge sort.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public class Sorting {
+	
+	/**
+	 * @return the (1-based) positions of the keys in ascending (or descending) order,
+	 * where equal keys keep their relative positions.
+	 */
+	public static int[] orderOfInts(final int[] keys, final boolean descending) {
+		Integer[] order = positions(keys.length);
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i, Integer j) {
+				int c = keys[i] < keys[j] ? -1 : (keys[i] == keys[j] ? 0 : 1);
+				return descending ? -c : c;
+			}
+		});
+		return oneBased(order);
+	}
+	
+	/**
+	 * @see #orderOfInts(int[], boolean)
+	 */
+	public static int[] orderOfNumbers(final double[] keys, final boolean descending) {
+		Integer[] order = positions(keys.length);
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i, Integer j) {
+				int c = Double.compare(keys[i], keys[j]);
+				return descending ? -c : c;
+			}
+		});
+		return oneBased(order);
+	}
+	
+	/**
+	 * @return the (1-based) positions of the texts in ascending (or descending) lexicographic
+	 * order, where equal texts keep their relative positions.
+	 */
+	public static int[] orderOfTexts(final String[] keys, final boolean descending) {
+		Integer[] order = positions(keys.length);
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i, Integer j) {
+				int c = keys[i].compareTo(keys[j]);
+				return descending ? -c : c;
+			}
+		});
+		return oneBased(order);
+	}
+	
+	private static Integer[] positions(int length) {
+		Integer[] positions = new Integer[length];
+		for (int i = 0; i < length; i++) {
+			positions[i] = i;
+		}
+		return positions;
+	}
+	
+	private static int[] oneBased(Integer[] order) {
+		int[] result = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			result[i] = order[i] + 1;
+		}
+		return result;
+	}
+
+}
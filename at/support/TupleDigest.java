@@ -0,0 +1,103 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import java.util.Arrays;
+
+/**
+ * A tuple digest is a compact summary of the tuple ids known to a TOTAM tuple space.
+ * Every tuple key (see tupleKey in at/lang/totam.at) is reduced to a 64-bit
+ * fingerprint, and the digest is the sorted array of those fingerprints. Digests
+ * are exchanged as plain AmbientTalk tables of numbers, every fingerprint being
+ * split into its high and low 32 bits, so they cost eight bytes per tuple on the
+ * wire, and membership tests take a binary search.
+ * 
+ * Two different keys may share a fingerprint: the chance that a tuple missing at
+ * the peer is mistaken for a present one is about n / 2^64 for a digest of n ids.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public class TupleDigest {
+	
+	private final long[] fingerprints_;
+	
+	/**
+	 * @param halves a table returned by {@link #digestOf(String[])}
+	 */
+	public TupleDigest(int[] halves) {
+		if (halves.length % 2 != 0) {
+			throw new IllegalArgumentException("a digest holds pairs of numbers: " + halves.length);
+		}
+		fingerprints_ = new long[halves.length / 2];
+		for (int i = 0; i < fingerprints_.length; i++) {
+			fingerprints_[i] = ((long) halves[2 * i] << 32) | (halves[2 * i + 1] & 0xffffffffL);
+		}
+		Arrays.sort(fingerprints_);
+	}
+	
+	/**
+	 * Returns the sorted fingerprints of the given tuple keys, each as its high
+	 * followed by its low 32 bits.
+	 */
+	public static int[] digestOf(String[] keys) {
+		long[] fingerprints = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			fingerprints[i] = fingerprint(keys[i]);
+		}
+		Arrays.sort(fingerprints);
+		int[] halves = new int[2 * fingerprints.length];
+		for (int i = 0; i < fingerprints.length; i++) {
+			halves[2 * i] = (int) (fingerprints[i] >>> 32);
+			halves[2 * i + 1] = (int) fingerprints[i];
+		}
+		return halves;
+	}
+	
+	/**
+	 * 64-bit FNV-1a hash of the characters of a key.
+	 */
+	public static long fingerprint(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	/**
+	 * @return true if the key is (very likely) part of this digest, false if it is certainly not.
+	 */
+	public boolean contains(String key) {
+		return Arrays.binarySearch(fingerprints_, fingerprint(key)) >= 0;
+	}
+	
+	public int size() {
+		return fingerprints_.length;
+	}
+
+}
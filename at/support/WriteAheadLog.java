@@ -0,0 +1,198 @@
+/**
+ * AmbientTalk/2 Project
+ * (c) Software Languages Lab, 2006 - 2011
+ * Authors: Ambient Group at SOFT
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package at.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of text records, kept in a directory next to a compacted snapshot.
+ * Records are appended to the file "log" through a FileChannel, each framed as
+ * [length, crc32, utf-8 bytes], so that a record torn by a crash is detected and
+ * ignored when the log is read back. Taking a snapshot writes the given records to
+ * "snapshot.tmp", forces it to disk, renames it over "snapshot" and truncates the log.
+ * Recovery therefore reads one snapshot and at most the records appended since.
+ * 
+ * This class is used by at/lang/totam.at to persist tuple spaces.
+ * 
+ * @author Ambient Group at SOFT
+ */
+public class WriteAheadLog {
+	
+	private static final String LOG = "log";
+	private static final String SNAPSHOT = "snapshot";
+	private static final String SNAPSHOT_TMP = "snapshot.tmp";
+	private static final int HEADER = 8;
+	
+	private final File directory_;
+	private final boolean sync_;
+	private FileChannel log_;
+	private int appended_;
+	
+	/**
+	 * @param directory the directory holding the log and snapshot, created if necessary
+	 * @param sync whether every append is forced to disk before it returns
+	 */
+	public WriteAheadLog(String directory, boolean sync) throws IOException {
+		directory_ = new File(directory);
+		if (!directory_.isDirectory() && !directory_.mkdirs()) {
+			throw new IOException("cannot create log directory " + directory);
+		}
+		sync_ = sync;
+		appended_ = 0;
+		log_ = openLog();
+	}
+	
+	private FileChannel openLog() throws IOException {
+		FileChannel channel = new RandomAccessFile(new File(directory_, LOG), "rw").getChannel();
+		channel.position(channel.size());
+		return channel;
+	}
+	
+	private static ByteBuffer frame(String record) throws IOException {
+		byte[] bytes = record.getBytes("UTF-8");
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER + bytes.length);
+		buffer.putInt(bytes.length);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(bytes);
+		buffer.flip();
+		return buffer;
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * Appends a record to the log.
+	 */
+	public synchronized void append(String record) throws IOException {
+		writeFully(log_, frame(record));
+		if (sync_) {
+			log_.force(false);
+		}
+		appended_++;
+	}
+	
+	/**
+	 * @return the number of records appended since the last snapshot was taken by this log.
+	 */
+	public synchronized int appendedSinceSnapshot() {
+		return appended_;
+	}
+	
+	/**
+	 * Replaces the snapshot by the given records and empties the log.
+	 */
+	public synchronized void snapshot(String[] records) throws IOException {
+		File tmp = new File(directory_, SNAPSHOT_TMP);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < records.length; i++) {
+			ByteBuffer buffer = frame(records[i]);
+			out.write(buffer.array(), 0, buffer.limit());
+		}
+		FileChannel channel = new RandomAccessFile(tmp, "rw").getChannel();
+		try {
+			channel.truncate(0);
+			writeFully(channel, ByteBuffer.wrap(out.toByteArray()));
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		File snapshot = new File(directory_, SNAPSHOT);
+		if (!tmp.renameTo(snapshot)) {
+			// renameTo does not replace an existing file on every platform
+			snapshot.delete();
+			if (!tmp.renameTo(snapshot)) {
+				throw new IOException("cannot install snapshot " + snapshot);
+			}
+		}
+		log_.truncate(0);
+		log_.position(0);
+		log_.force(true);
+		appended_ = 0;
+	}
+	
+	/**
+	 * @return the records of the last snapshot, or an empty table if no snapshot was taken.
+	 */
+	public String[] readSnapshot() throws IOException {
+		return read(new File(directory_, SNAPSHOT));
+	}
+	
+	/**
+	 * @return the records appended since the last snapshot, up to the first torn record.
+	 */
+	public synchronized String[] readLog() throws IOException {
+		return read(new File(directory_, LOG));
+	}
+	
+	private static String[] read(File file) throws IOException {
+		ArrayList<String> records = new ArrayList<String>();
+		if (file.exists()) {
+			FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+				buffer.flip();
+				while (buffer.remaining() >= HEADER) {
+					int length = buffer.getInt();
+					int checksum = buffer.getInt();
+					if (length < 0 || length > buffer.remaining()) {
+						break;
+					}
+					byte[] bytes = new byte[length];
+					buffer.get(bytes);
+					CRC32 crc = new CRC32();
+					crc.update(bytes);
+					if ((int) crc.getValue() != checksum) {
+						break;
+					}
+					records.add(new String(bytes, "UTF-8"));
+				}
+			} finally {
+				channel.close();
+			}
+		}
+		return records.toArray(new String[records.size()]);
+	}
+	
+	public synchronized void close() throws IOException {
+		log_.close();
+	}
+
+}